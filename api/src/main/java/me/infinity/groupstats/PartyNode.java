@@ -0,0 +1,31 @@
+package me.infinity.groupstats;
+
+import com.j256.ormlite.field.DataType;
+import com.j256.ormlite.field.DatabaseField;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+
+import java.util.UUID;
+
+/**
+ * Aggregate statistics row for a persistent party, i.e. the same set of players sharing a team.
+ * The identifier is derived from the sorted member ids, so a party maps to the same row every time it queues.
+ */
+@Getter
+@Setter
+@ToString(callSuper = true)
+@EqualsAndHashCode(callSuper = true)
+public class PartyNode extends GroupNode {
+
+    @DatabaseField(columnName = "members", dataType = DataType.LONG_STRING)
+    private String members;
+
+    public PartyNode() { }
+
+    public PartyNode(UUID uniqueId, String members) {
+        super(uniqueId);
+        this.members = members;
+    }
+}
@@ -8,6 +8,7 @@ import me.infinity.groupstats.listeners.GroupStatsListener;
 import me.infinity.groupstats.listeners.ProfileJoinListener;
 import me.infinity.groupstats.manager.DatabaseInitiator;
 import me.infinity.groupstats.manager.DatabaseController;
+import me.infinity.groupstats.manager.PartyManager;
 import org.bukkit.Bukkit;
 import org.bukkit.plugin.java.JavaPlugin;
 
@@ -25,6 +26,7 @@ public final class GroupStatsPlugin extends JavaPlugin {
     private YamlDocument configuration;
     private DatabaseInitiator databaseInitiator;
     private DatabaseController databaseController;
+    private PartyManager partyManager;
 
     @Override
     public void onLoad() {
@@ -64,11 +66,18 @@ public final class GroupStatsPlugin extends JavaPlugin {
 
         this.getLogger().info("Loading group manager...");
         this.databaseController = new DatabaseController(this);
+        this.partyManager = new PartyManager(
+                this.getConfig().getBoolean("PARTIES.ENABLED"),
+                this.getConfig().getStringList("PARTIES.ARENAS")
+        );
+
+        this.getLogger().info("Scheduling database recovery probe...");
+        this.getServer().getScheduler().runTaskTimerAsynchronously(this, this.databaseController::probe, 20L, 20L);
 
         this.getLogger().info("Registering event listeners...");
 
         this.getServer().getPluginManager().registerEvents(new ProfileJoinListener(this.databaseController), this);
-        this.getServer().getPluginManager().registerEvents(new GroupStatsListener(this.databaseController), this);
+        this.getServer().getPluginManager().registerEvents(new GroupStatsListener(this.databaseController, this.partyManager), this);
 
 //        this.getLogger().info("Hooking with PAPI...");
 //        new GroupStatsExpansion(this).register();
@@ -76,6 +85,7 @@ public final class GroupStatsPlugin extends JavaPlugin {
 
     @Override
     public void onDisable() {
+        if (this.databaseController != null) this.databaseController.shutdown();
         this.databaseInitiator.disconnect();
     }
 }
@@ -8,39 +8,60 @@ import de.marcely.bedwars.api.event.player.*;
 import lombok.Getter;
 import me.infinity.groupstats.GroupNode;
 import me.infinity.groupstats.manager.DatabaseController;
+import me.infinity.groupstats.manager.PartyManager;
 import me.infinity.groupstats.models.StatisticType;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.Listener;
 import org.bukkit.event.entity.EntityDamageEvent;
 
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.CompletableFuture;
 
 @Getter
 public class GroupStatsListener implements Listener {
 
     private final DatabaseController databaseController;
     private final Dao<GroupNode, UUID> controller;
+    private final PartyManager partyManager;
 
-    public GroupStatsListener(DatabaseController databaseController) {
+    public GroupStatsListener(DatabaseController databaseController, PartyManager partyManager) {
         this.databaseController = databaseController;
         this.controller = databaseController.getStatsController();
+        this.partyManager = partyManager;
+    }
+
+    @EventHandler
+    public void onGameStart(RoundStartEvent event) {
+        final Map<UUID, String> parties = this.partyManager.register(event.getArena());
+        this.databaseController.runAsync(() -> {
+            parties.forEach(this.databaseController::upsertParty);
+        });
     }
 
     @EventHandler
     public void onBedBreak(ArenaBedBreakEvent event) {
         // Handle bed breaker
         final UUID breakerId = event.getPlayer().getUniqueId();
-        CompletableFuture.runAsync(() -> {
+        final UUID breakerPartyId = this.partyManager.getParty(breakerId);
+        this.databaseController.runAsync(() -> {
             this.databaseController.incrementStatistic(breakerId, StatisticType.BEDSBROKEN);
+            this.databaseController.incrementPartyStatistic(breakerPartyId, StatisticType.BEDSBROKEN);
         });
 
-        // Handle victims
+        // Handle victims, the victim party loses a single bed
+        final Set<UUID> victimPartyIds = new HashSet<>();
         event.getArena().getPlayersInTeam(event.getTeam()).forEach(victim -> {
-            CompletableFuture.runAsync(() -> {
+            final UUID victimPartyId = this.partyManager.getParty(victim.getUniqueId());
+            if (victimPartyId != null) victimPartyIds.add(victimPartyId);
+            this.databaseController.runAsync(() -> {
                 this.databaseController.incrementStatistic(victim.getUniqueId(), StatisticType.BEDSLOST);
             });
         });
+        this.databaseController.runAsync(() -> {
+            victimPartyIds.forEach(partyId -> this.databaseController.incrementPartyStatistic(partyId, StatisticType.BEDSLOST));
+        });
     }
 
     @EventHandler
@@ -48,40 +69,63 @@ public class GroupStatsListener implements Listener {
         // Killer stats
         final UUID killerId = event.getKiller().getUniqueId();
         final UUID victimId = event.getDamaged().getUniqueId();
-        CompletableFuture.runAsync(() -> {
-            if (event.isFatalDeath()) {
+        final UUID killerPartyId = this.partyManager.getParty(killerId);
+        final UUID victimPartyId = this.partyManager.getParty(victimId);
+        final boolean fatalDeath = event.isFatalDeath();
+        this.databaseController.runAsync(() -> {
+            if (fatalDeath) {
                 this.databaseController.incrementStatistic(killerId, StatisticType.FINALKILLS);
                 this.databaseController.incrementStatistic(victimId, StatisticType.FINALDEATHS);
                 this.databaseController.incrementStatistic(victimId, StatisticType.GAMESPLAYED);
+                this.databaseController.incrementPartyStatistic(killerPartyId, StatisticType.FINALKILLS);
+                this.databaseController.incrementPartyStatistic(victimPartyId, StatisticType.FINALDEATHS);
             } else {
                 this.databaseController.incrementStatistic(killerId, StatisticType.KILLS);
                 this.databaseController.incrementStatistic(victimId, StatisticType.DEATHS);
+                this.databaseController.incrementPartyStatistic(killerPartyId, StatisticType.KILLS);
+                this.databaseController.incrementPartyStatistic(victimPartyId, StatisticType.DEATHS);
             }
         });
     }
 
     @EventHandler
     public void onGameEnd(RoundEndEvent event) {
+        final UUID winnerPartyId = event.getWinners().stream()
+                .map(player -> this.partyManager.getParty(player.getUniqueId()))
+                .filter(partyId -> partyId != null)
+                .findFirst()
+                .orElse(null);
+        final Set<UUID> partyIds = this.partyManager.unregister(event.getArena());
         if (event.isTie()) {
             return;
         }
 
-        CompletableFuture.runAsync(() -> {
+        this.databaseController.runAsync(() -> {
             event.getWinners().forEach(player -> {
                 final UUID playerId = player.getUniqueId();
                 this.databaseController.incrementStatistic(playerId, StatisticType.WINS);
                 this.databaseController.incrementStatistic(playerId, StatisticType.GAMESPLAYED);
                 this.databaseController.incrementStatistic(playerId, StatisticType.WINSTREAK);
-
-                final int newWinstreak = this.databaseController.fetchStatistic(playerId, StatisticType.WINSTREAK);
-                if (newWinstreak > this.databaseController.fetchStatistic(playerId, StatisticType.HIGHESTWINSTREAK)) {
-                    this.databaseController.setStatistic(playerId, StatisticType.HIGHESTWINSTREAK, newWinstreak);
-                }
+                this.databaseController.updateHighestWinstreak(playerId);
             });
             event.getLosers().forEach(uniqueId -> {
                 this.databaseController.incrementStatistic(uniqueId.getUniqueId(), StatisticType.LOSSES);
                 this.databaseController.setStatistic(uniqueId.getUniqueId(), StatisticType.WINSTREAK, 0);
             });
+
+            // Party games are counted once per party, not once per member
+            partyIds.forEach(partyId -> {
+                this.databaseController.incrementPartyStatistic(partyId, StatisticType.GAMESPLAYED);
+                if (!partyId.equals(winnerPartyId)) {
+                    this.databaseController.incrementPartyStatistic(partyId, StatisticType.LOSSES);
+                    this.databaseController.setPartyStatistic(partyId, StatisticType.WINSTREAK, 0);
+                    return;
+                }
+
+                this.databaseController.incrementPartyStatistic(partyId, StatisticType.WINS);
+                this.databaseController.incrementPartyStatistic(partyId, StatisticType.WINSTREAK);
+                this.databaseController.updatePartyHighestWinstreak(partyId);
+            });
         });
     }
 
@@ -92,7 +136,7 @@ public class GroupStatsListener implements Listener {
         if (!event.getReason().isRageQuit()) return;
 
         final UUID playerId = event.getPlayer().getUniqueId();
-        CompletableFuture.runAsync(() -> {
+        this.databaseController.runAsync(() -> {
             this.databaseController.incrementStatistic(playerId, StatisticType.LOSSES);
             this.databaseController.setStatistic(playerId, StatisticType.WINSTREAK, 0);
         });
@@ -104,8 +148,11 @@ public class GroupStatsListener implements Listener {
         if (event instanceof PlayerKillPlayerEvent) return;
         if (!(event.getPlayer().getLastDamageCause().getCause() == EntityDamageEvent.DamageCause.VOID)) return;
 
-        CompletableFuture.runAsync(() -> {
-            this.databaseController.incrementStatistic(event.getPlayer().getUniqueId(), StatisticType.DEATHS);
+        final UUID playerId = event.getPlayer().getUniqueId();
+        final UUID partyId = this.partyManager.getParty(playerId);
+        this.databaseController.runAsync(() -> {
+            this.databaseController.incrementStatistic(playerId, StatisticType.DEATHS);
+            this.databaseController.incrementPartyStatistic(partyId, StatisticType.DEATHS);
         });
     }
 }
\ No newline at end of file
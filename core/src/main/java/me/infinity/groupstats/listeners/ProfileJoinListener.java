@@ -17,6 +17,6 @@ public class ProfileJoinListener implements Listener {
     @EventHandler(priority = EventPriority.MONITOR)
     public void onJoin(PlayerJoinEvent event) {
         UUID uniqueId = event.getPlayer().getUniqueId();
-        databaseController.upsert(uniqueId);
+        databaseController.runAsync(() -> databaseController.upsert(uniqueId));
     }
 }
\ No newline at end of file
@@ -0,0 +1,271 @@
+package me.infinity.groupstats.manager;
+
+import lombok.Getter;
+
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Guards the storage layer against slow or failing database servers.
+ * The circuit opens when the failure rate over the last calls or the average call latency grows too high.
+ * While open, writes are parked in a bounded queue and replayed in order once a probe succeeds.
+ * Only writes that never reached the server, i.e. failed to acquire a connection, are parked, so replaying them
+ * cannot apply a non-idempotent statement twice. Any other failed write is logged and dropped.
+ * Such writes are parked even while the circuit is closed, and the next probe replays them.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    @FunctionalInterface
+    public interface SqlCall<R> {
+        R call() throws SQLException;
+    }
+
+    private static final double LATENCY_WEIGHT = 0.2;
+    private static final int MINIMUM_LATENCY_SAMPLES = 10;
+
+    private final Logger logger;
+    private final double failureRateThreshold;
+    private final long latencyThresholdNanos;
+    private final long openDurationNanos;
+    private final int maxParkedWrites;
+
+    private final boolean[] outcomes;
+    private final Deque<ParkedWrite> parkedWrites = new ArrayDeque<>();
+
+    @Getter
+    private volatile State state = State.CLOSED;
+    private long openedAt;
+    private boolean opened;
+    private int outcomeIndex;
+    private int outcomeCount;
+    private int windowFailures;
+    private double averageLatencyNanos;
+    private int latencySamples;
+    private String lastFailure;
+    private int suppressedFailures;
+    private int droppedWrites;
+
+    public CircuitBreaker(Logger logger, int windowSize, double failureRateThreshold, long latencyThresholdMillis, long openDurationSeconds, int maxParkedWrites) {
+        this.logger = logger;
+        this.outcomes = new boolean[Math.max(1, windowSize)];
+        this.failureRateThreshold = failureRateThreshold;
+        this.latencyThresholdNanos = TimeUnit.MILLISECONDS.toNanos(latencyThresholdMillis);
+        this.openDurationNanos = TimeUnit.SECONDS.toNanos(openDurationSeconds);
+        this.maxParkedWrites = maxParkedWrites;
+    }
+
+    /**
+     * Whether the statement failed before it was sent, e.g. Hikari timing out while acquiring a connection.
+     */
+    public static boolean isTransientConnectionFailure(Throwable throwable) {
+        for (Throwable cause = throwable; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLTransientConnectionException) return true;
+        }
+        return false;
+    }
+
+    public boolean isClosed() {
+        return this.state == State.CLOSED;
+    }
+
+    /**
+     * Parks the write if the circuit is not closed. Once the queue is full, further writes are dropped and counted.
+     *
+     * @return false if the caller should execute the write itself
+     */
+    public synchronized boolean tryPark(String failure, SqlCall<?> write) {
+        if (this.state == State.CLOSED) return false;
+
+        this.park(failure, write);
+        return true;
+    }
+
+    /**
+     * Parks a write regardless of the circuit state, for writes that are known to never have reached the server.
+     */
+    public synchronized void park(String failure, SqlCall<?> write) {
+        if (this.parkedWrites.size() >= this.maxParkedWrites) {
+            this.droppedWrites++;
+        } else {
+            this.parkedWrites.addLast(new ParkedWrite(failure, write));
+        }
+    }
+
+    public synchronized void recordSuccess(long elapsedNanos) {
+        this.record(false, elapsedNanos);
+    }
+
+    public synchronized void recordFailure(String message, long elapsedNanos) {
+        if (this.state != State.CLOSED || message.equals(this.lastFailure)) {
+            this.suppressedFailures++;
+        } else {
+            this.logger.severe(message);
+            this.lastFailure = message;
+        }
+
+        this.record(true, elapsedNanos);
+    }
+
+    /**
+     * Periodically called off the main thread. Once the circuit has been open long enough, or writes were parked
+     * while it was closed, the ping is executed and, if it succeeds, the parked writes are replayed in order before
+     * the circuit closes again. New writes are parked behind them meanwhile, so the order is kept.
+     */
+    public void probe(SqlCall<?> ping) {
+        synchronized (this) {
+            final boolean replayClosed = this.state == State.CLOSED && !this.parkedWrites.isEmpty();
+            final boolean retryOpen = this.state == State.OPEN && System.nanoTime() - this.openedAt >= this.openDurationNanos;
+            if (!replayClosed && !retryOpen) return;
+            this.state = State.HALF_OPEN;
+        }
+
+        try {
+            ping.call();
+        } catch (SQLException e) {
+            this.reopen();
+            return;
+        }
+
+        ParkedWrite write;
+        while ((write = this.nextParkedWrite()) != null) {
+            try {
+                write.getCall().call();
+            } catch (SQLException e) {
+                if (!isTransientConnectionFailure(e)) {
+                    this.logger.severe("Dropped parked write after replay failure. " + write.getFailure() + e.getMessage());
+                    continue;
+                }
+
+                this.requeue(write);
+                this.reopen();
+                this.logger.warning("Replaying parked writes failed after a successful probe, "
+                        + this.getParkedCount() + " writes remain parked: " + e.getMessage());
+                return;
+            }
+        }
+    }
+
+    /**
+     * Called on shutdown. Replays the parked writes once if the database answers the ping, and reports
+     * every write that could not be saved.
+     */
+    public void flush(SqlCall<?> ping) {
+        final List<ParkedWrite> writes;
+        final int dropped;
+        synchronized (this) {
+            writes = new ArrayList<>(this.parkedWrites);
+            dropped = this.droppedWrites;
+            this.parkedWrites.clear();
+            this.droppedWrites = 0;
+        }
+        if (writes.isEmpty() && dropped == 0) return;
+
+        int flushed = 0;
+        try {
+            ping.call();
+            for (ParkedWrite write : writes) {
+                try {
+                    write.getCall().call();
+                    flushed++;
+                } catch (SQLException e) {
+                    if (isTransientConnectionFailure(e)) break;
+                }
+            }
+        } catch (SQLException ignored) {
+        }
+
+        this.logger.warning("Flushed " + flushed + " parked writes on shutdown, discarded " + (writes.size() - flushed)
+                + " parked writes and " + dropped + " writes dropped while the circuit was open.");
+    }
+
+    private synchronized int getParkedCount() {
+        return this.parkedWrites.size();
+    }
+
+    private void record(boolean failed, long elapsedNanos) {
+        if (this.outcomeCount == this.outcomes.length) {
+            if (this.outcomes[this.outcomeIndex]) this.windowFailures--;
+        } else {
+            this.outcomeCount++;
+        }
+        this.outcomes[this.outcomeIndex] = failed;
+        if (failed) this.windowFailures++;
+        this.outcomeIndex = (this.outcomeIndex + 1) % this.outcomes.length;
+
+        this.averageLatencyNanos = this.latencySamples == 0
+                ? elapsedNanos
+                : LATENCY_WEIGHT * elapsedNanos + (1 - LATENCY_WEIGHT) * this.averageLatencyNanos;
+        this.latencySamples++;
+
+        if (this.state != State.CLOSED) return;
+
+        if (this.outcomeCount == this.outcomes.length
+                && (double) this.windowFailures / this.outcomeCount >= this.failureRateThreshold) {
+            this.trip(this.windowFailures + " of the last " + this.outcomeCount + " calls failed");
+        } else if (this.latencySamples >= MINIMUM_LATENCY_SAMPLES && this.averageLatencyNanos > this.latencyThresholdNanos) {
+            this.trip("average call latency reached " + TimeUnit.NANOSECONDS.toMillis((long) this.averageLatencyNanos) + "ms");
+        }
+    }
+
+    private void trip(String reason) {
+        this.state = State.OPEN;
+        this.opened = true;
+        this.openedAt = System.nanoTime();
+        this.logger.warning("Database circuit opened (" + reason + "), statistic writes are parked until the database recovers.");
+    }
+
+    private synchronized void reopen() {
+        this.state = State.OPEN;
+        this.opened = true;
+        this.openedAt = System.nanoTime();
+        this.suppressedFailures++;
+    }
+
+    private synchronized void requeue(ParkedWrite write) {
+        this.parkedWrites.addFirst(write);
+    }
+
+    private synchronized ParkedWrite nextParkedWrite() {
+        final ParkedWrite write = this.parkedWrites.pollFirst();
+        if (write == null) this.close();
+        return write;
+    }
+
+    private void close() {
+        if (this.opened || this.droppedWrites > 0) {
+            this.logger.info("Database circuit closed, " + this.suppressedFailures + " failures suppressed and "
+                    + this.droppedWrites + " writes dropped while open.");
+        }
+        this.state = State.CLOSED;
+        this.opened = false;
+        this.outcomeIndex = 0;
+        this.outcomeCount = 0;
+        this.windowFailures = 0;
+        this.latencySamples = 0;
+        this.lastFailure = null;
+        this.suppressedFailures = 0;
+        this.droppedWrites = 0;
+    }
+
+    @Getter
+    private static final class ParkedWrite {
+
+        private final String failure;
+        private final SqlCall<?> call;
+
+        private ParkedWrite(String failure, SqlCall<?> call) {
+            this.failure = failure;
+            this.call = call;
+        }
+    }
+}
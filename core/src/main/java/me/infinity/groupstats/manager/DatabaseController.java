@@ -7,71 +7,295 @@ import com.j256.ormlite.stmt.UpdateBuilder;
 import lombok.Getter;
 import me.infinity.groupstats.GroupNode;
 import me.infinity.groupstats.GroupStatsPlugin;
+import me.infinity.groupstats.PartyNode;
 import me.infinity.groupstats.models.StatisticType;
+import org.bukkit.configuration.ConfigurationSection;
 
 import java.sql.SQLException;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 @Getter
 public class DatabaseController {
 
+    private static final List<StatisticType> COUNTERS = Arrays.asList(
+            StatisticType.GAMESPLAYED, StatisticType.BEDSBROKEN, StatisticType.BEDSLOST, StatisticType.KILLS,
+            StatisticType.DEATHS, StatisticType.FINALKILLS, StatisticType.FINALDEATHS, StatisticType.WINS,
+            StatisticType.LOSSES, StatisticType.WINSTREAK, StatisticType.HIGHESTWINSTREAK
+    );
+
     private final GroupStatsPlugin instance;
     private final Dao<GroupNode, UUID> statsController;
+    private final Dao<PartyNode, UUID> partyController;
+    private final CircuitBreaker circuitBreaker;
+    private final ExecutorService executor;
 
     public DatabaseController(GroupStatsPlugin instance) {
         this.instance = instance;
         this.statsController = this.instance.getDatabaseInitiator().getProfileDao();
+        this.partyController = this.instance.getDatabaseInitiator().getPartyDao();
+
+        ConfigurationSection section = instance.getConfig().getConfigurationSection("CIRCUIT-BREAKER");
+        this.circuitBreaker = new CircuitBreaker(
+                instance.getLogger(),
+                section.getInt("WINDOW-SIZE"),
+                section.getDouble("FAILURE-RATE-THRESHOLD"),
+                section.getLong("LATENCY-THRESHOLD-MS"),
+                section.getLong("OPEN-DURATION-SECONDS"),
+                section.getInt("MAX-PARKED-WRITES")
+        );
+
+        final int threads = section.getInt("WORKER-THREADS");
+        final AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(section.getInt("MAX-QUEUED-TASKS")),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "groupstats-database-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                (runnable, executor) -> this.circuitBreaker.park("Failed to run rejected statistic update: ", () -> {
+                    runnable.run();
+                    return null;
+                }));
     }
 
-    public boolean upsert(UUID uniqueId) {
+    /**
+     * Runs database work on the bounded worker pool. Once its queue is full, the task is parked with the writes.
+     */
+    public void runAsync(Runnable task) {
+        this.executor.execute(task);
+    }
+
+    /**
+     * Checks whether the database has recovered and replays the writes parked while it was unavailable.
+     */
+    public void probe() {
+        this.circuitBreaker.probe(this::ping);
+    }
+
+    /**
+     * Saves what was parked while the database was unavailable before the connection pool is closed.
+     */
+    public void shutdown() {
+        this.executor.shutdown();
         try {
-            this.statsController.createIfNotExists(new GroupNode(uniqueId));
-        } catch (SQLException e) {
-            this.instance.getLogger().severe("Failed to save group profile for " + uniqueId + ": " + e.getMessage());
-            return false;
+            if (!this.executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                this.instance.getLogger().warning("Discarded " + this.executor.shutdownNow().size() + " queued statistic updates on shutdown.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
-        return true;
+        this.circuitBreaker.flush(this::ping);
+    }
+
+    private Object ping() throws SQLException {
+        return this.statsController.queryRaw("SELECT 1").getFirstResult();
+    }
+
+    public boolean upsert(UUID uniqueId) {
+        return this.write("Failed to save group profile for " + uniqueId + ": ",
+                () -> this.statsController.createIfNotExists(new GroupNode(uniqueId)), null) != null;
+    }
+
+    public boolean upsertParty(UUID partyId, String members) {
+        return this.write("Failed to save party profile for " + partyId + ": ",
+                () -> this.partyController.updateRaw(this.getPartyUpsert("members", "?", "?"),
+                        partyId.toString(), members, members), null) != null;
     }
 
     public int fetchStatistic(UUID uniqueId, StatisticType type) {
-        try {
-            PreparedQuery<GroupNode> rawQuery = statsController.queryBuilder()
+        return this.fetchStatistic(this.statsController, uniqueId, type);
+    }
+
+    public int incrementStatistic(UUID uniqueId, StatisticType type) {
+        return this.incrementStatistic(this.statsController, uniqueId, type);
+    }
+
+    public int setStatistic(UUID uniqueId, StatisticType type, int value) {
+        return this.setStatistic(this.statsController, uniqueId, type, value);
+    }
+
+    public int updateHighestWinstreak(UUID uniqueId) {
+        return this.updateHighestWinstreak(this.statsController, uniqueId);
+    }
+
+    public int fetchPartyStatistic(UUID partyId, StatisticType type) {
+        if (partyId == null) return 0;
+        return this.fetchStatistic(this.partyController, partyId, type);
+    }
+
+    /**
+     * Party writes insert the row when it is missing, so they do not depend on the upsert at round start.
+     */
+    public int incrementPartyStatistic(UUID partyId, StatisticType type) {
+        if (partyId == null) return 0;
+        final String column = this.escape(type.getColumn());
+        return this.writeParty(partyId, type.getColumn(), "1", column + " + 1");
+    }
+
+    public int setPartyStatistic(UUID partyId, StatisticType type, int value) {
+        if (partyId == null) return 0;
+        return this.writeParty(partyId, type.getColumn(), String.valueOf(value), String.valueOf(value));
+    }
+
+    public int updatePartyHighestWinstreak(UUID partyId) {
+        if (partyId == null) return 0;
+        return this.writeParty(partyId, StatisticType.HIGHESTWINSTREAK.getColumn(), "0", "GREATEST("
+                + this.escape(StatisticType.HIGHESTWINSTREAK.getColumn()) + ", "
+                + this.escape(StatisticType.WINSTREAK.getColumn()) + ")");
+    }
+
+    public PartyNode fetchParty(UUID partyId) {
+        if (partyId == null) return null;
+        return this.read("Failed to fetch party profile: ", () -> this.partyController.queryForId(partyId), null);
+    }
+
+    /**
+     * Reads the top parties for a statistic straight from the aggregate table.
+     * Ratio types are ordered by their expression, treating a zero denominator as one.
+     */
+    public List<PartyNode> fetchPartyLeaderboard(StatisticType type, int limit) {
+        return this.read("Failed to fetch party leaderboard: ", () -> this.partyController.queryBuilder()
+                .orderByRaw(this.getOrderExpression(type) + " DESC")
+                .limit((long) limit)
+                .query(), Collections.emptyList());
+    }
+
+    private String getOrderExpression(StatisticType type) {
+        switch (type) {
+            case KDR:
+                return this.getRatioExpression(StatisticType.KILLS, StatisticType.DEATHS);
+            case FKDR:
+                return this.getRatioExpression(StatisticType.FINALKILLS, StatisticType.FINALDEATHS);
+            case BBLR:
+                return this.getRatioExpression(StatisticType.BEDSBROKEN, StatisticType.BEDSLOST);
+            case WLR:
+                return this.getRatioExpression(StatisticType.WINS, StatisticType.LOSSES);
+            default:
+                return this.escape(type.getColumn());
+        }
+    }
+
+    private String getRatioExpression(StatisticType numerator, StatisticType denominator) {
+        return this.escape(numerator.getColumn()) + " / GREATEST(" + this.escape(denominator.getColumn()) + ", 1)";
+    }
+
+    private int writeParty(UUID partyId, String column, String insertValue, String updateExpression) {
+        return this.write("Failed to update party statistics: ",
+                () -> this.partyController.updateRaw(this.getPartyUpsert(column, insertValue, updateExpression),
+                        partyId.toString()), 1);
+    }
+
+    /**
+     * Builds an insert of a zeroed party row with the given column value, updating only that column if the row exists.
+     */
+    private String getPartyUpsert(String column, String insertValue, String updateExpression) {
+        final List<String> columns = COUNTERS.stream()
+                .map(StatisticType::getColumn)
+                .filter(counter -> !counter.equals(column))
+                .collect(Collectors.toList());
+
+        return "INSERT INTO " + this.escape(this.partyController.getTableName())
+                + " (" + this.escape("uuid") + ", " + this.escape(column) + ", "
+                + columns.stream().map(this::escape).collect(Collectors.joining(", ")) + ")"
+                + " VALUES (?, " + insertValue + ", " + String.join(", ", Collections.nCopies(columns.size(), "0")) + ")"
+                + " ON DUPLICATE KEY UPDATE " + this.escape(column) + " = " + updateExpression;
+    }
+
+    private String escape(String name) {
+        final StringBuilder builder = new StringBuilder();
+        this.partyController.getConnectionSource().getDatabaseType().appendEscapedEntityName(builder, name);
+        return builder.toString();
+    }
+
+    private <T> int fetchStatistic(Dao<T, UUID> dao, UUID uniqueId, StatisticType type) {
+        return this.read("Failed to fetch statistic column: ", () -> {
+            PreparedQuery<T> rawQuery = dao.queryBuilder()
                     .selectColumns(type.getColumn())
                     .where().idEq(uniqueId)
                     .prepare();
 
-            GenericRawResults<String[]> rawResults = statsController.queryRaw(rawQuery.getStatement());
-            return Integer.valueOf(Arrays.stream(rawResults.getFirstResult()).findFirst().get());
-        } catch (SQLException e) {
-            instance.getLogger().severe("Failed to fetch statistic column: " + e.getMessage());
-            return 0;
-        }
+            GenericRawResults<String[]> rawResults = dao.queryRaw(rawQuery.getStatement());
+            String[] result = rawResults.getFirstResult();
+            return result == null || result.length == 0 ? 0 : Integer.valueOf(result[0]);
+        }, 0);
     }
 
-    public int incrementStatistic(UUID uniqueId, StatisticType type) {
-        try {
-            UpdateBuilder<GroupNode, UUID> builder = statsController.updateBuilder();
+    private <T> int incrementStatistic(Dao<T, UUID> dao, UUID uniqueId, StatisticType type) {
+        return this.write("Failed to increment statistics: ", () -> {
+            UpdateBuilder<T, UUID> builder = dao.updateBuilder();
             builder.where().idEq(uniqueId);
-            builder.updateColumnValue(type.getColumn(), type.getColumn() + " + 1");
+            builder.updateColumnExpression(type.getColumn(), builder.escapeColumnName(type.getColumn()) + " + 1");
             return builder.update();
-        } catch (SQLException e) {
-            instance.getLogger().severe("Failed to increment statistics: " + e.getMessage());
-            return 1;
-        }
+        }, 1);
     }
 
-    public int setStatistic(UUID uniqueId, StatisticType type, int value) {
-        try {
-            UpdateBuilder<GroupNode, UUID> builder = statsController.updateBuilder();
+    /**
+     * Raises the highest winstreak to the current winstreak in one statement, so it can be parked with the increment.
+     */
+    private <T> int updateHighestWinstreak(Dao<T, UUID> dao, UUID uniqueId) {
+        return this.write("Failed to update highest winstreak: ", () -> {
+            UpdateBuilder<T, UUID> builder = dao.updateBuilder();
+            builder.where().idEq(uniqueId);
+            builder.updateColumnExpression(StatisticType.HIGHESTWINSTREAK.getColumn(), "GREATEST("
+                    + builder.escapeColumnName(StatisticType.HIGHESTWINSTREAK.getColumn()) + ", "
+                    + builder.escapeColumnName(StatisticType.WINSTREAK.getColumn()) + ")");
+            return builder.update();
+        }, 1);
+    }
+
+    private <T> int setStatistic(Dao<T, UUID> dao, UUID uniqueId, StatisticType type, int value) {
+        return this.write("Failed to increment statistics: ", () -> {
+            UpdateBuilder<T, UUID> builder = dao.updateBuilder();
             builder.where().idEq(uniqueId);
             builder.updateColumnValue(type.getColumn(), value);
             return builder.update();
+        }, 1);
+    }
+
+    /**
+     * Reads are skipped while the circuit is open, the fallback is returned instead.
+     */
+    private <R> R read(String failure, CircuitBreaker.SqlCall<R> query, R fallback) {
+        if (!this.circuitBreaker.isClosed()) return fallback;
+
+        final long start = System.nanoTime();
+        try {
+            final R result = query.call();
+            this.circuitBreaker.recordSuccess(System.nanoTime() - start);
+            return result;
         } catch (SQLException e) {
-            instance.getLogger().severe("Failed to increment statistics: " + e.getMessage());
-            return 1;
+            this.circuitBreaker.recordFailure(failure + e.getMessage(), System.nanoTime() - start);
+            return fallback;
         }
     }
 
-}
+    /**
+     * Writes are parked while the circuit is open. A failed write is only parked when it never reached the server,
+     * otherwise replaying it could apply it twice.
+     */
+    private <R> R write(String failure, CircuitBreaker.SqlCall<R> update, R fallback) {
+        if (this.circuitBreaker.tryPark(failure, update)) return fallback;
 
+        final long start = System.nanoTime();
+        try {
+            final R result = update.call();
+            this.circuitBreaker.recordSuccess(System.nanoTime() - start);
+            return result;
+        } catch (SQLException e) {
+            this.circuitBreaker.recordFailure(failure + e.getMessage(), System.nanoTime() - start);
+            if (CircuitBreaker.isTransientConnectionFailure(e)) this.circuitBreaker.park(failure, update);
+            return fallback;
+        }
+    }
+
+}
@@ -11,6 +11,7 @@ import com.zaxxer.hikari.HikariDataSource;
 import lombok.Getter;
 import me.infinity.groupstats.GroupNode;
 import me.infinity.groupstats.GroupStatsPlugin;
+import me.infinity.groupstats.PartyNode;
 import org.bukkit.Bukkit;
 import org.bukkit.configuration.ConfigurationSection;
 import org.jetbrains.annotations.NotNull;
@@ -24,12 +25,14 @@ public class DatabaseInitiator {
 
     private final HikariDataSource hikariDataSource;
     private Dao<GroupNode, UUID> profileDao;
+    private Dao<PartyNode, UUID> partyDao;
     private ConnectionSource connectionSource;
 
-    private String tableName;
+    private String tableName, partyTableName;
 
     private String address, database, username, password;
     private int port;
+    private long connectionTimeout;
     private boolean ssl;
 
     public DatabaseInitiator(GroupStatsPlugin instance) {
@@ -41,11 +44,16 @@ public class DatabaseInitiator {
         DatabaseTableConfig<GroupNode> tableConfig = new DatabaseTableConfig<>();
         tableConfig.setDataClass(GroupNode.class);
         tableConfig.setTableName(tableName);
+        DatabaseTableConfig<PartyNode> partyTableConfig = new DatabaseTableConfig<>();
+        partyTableConfig.setDataClass(PartyNode.class);
+        partyTableConfig.setTableName(partyTableName);
 
         try {
             this.connectionSource = new DataSourceConnectionSource(this.hikariDataSource, hikariConfig.getJdbcUrl());
             this.profileDao = DaoManager.createDao(this.connectionSource, tableConfig);
             TableUtils.createTableIfNotExists(this.connectionSource, tableConfig);
+            this.partyDao = DaoManager.createDao(this.connectionSource, partyTableConfig);
+            TableUtils.createTableIfNotExists(this.connectionSource, partyTableConfig);
         } catch (Exception ex) {
             instance.getLogger().severe(ex.getMessage());
             Bukkit.getServer().getPluginManager().disablePlugin(instance);
@@ -60,6 +68,7 @@ public class DatabaseInitiator {
         hikariConfig.addDataSourceProperty("useUnicode", true);
         hikariConfig.addDataSourceProperty("useSSL", this.ssl);
         hikariConfig.setMaximumPoolSize(20);
+        hikariConfig.setConnectionTimeout(this.connectionTimeout);
         hikariConfig.setUsername(this.username);
         hikariConfig.setPassword(this.password);
         hikariConfig.setPoolName("mcfleet-mbedwars-groupstats");
@@ -69,12 +78,14 @@ public class DatabaseInitiator {
     private void loadCredentials() {
         ConfigurationSection section = instance.getConfig().getConfigurationSection("DATABASE");
         this.tableName = section.getString("TABLE");
+        this.partyTableName = section.getString("PARTY-TABLE", this.tableName + "_parties");
         this.address = section.getString("ADDRESS");
         this.port = section.getInt("PORT");
         this.database = section.getString("DATABASE");
         this.username = section.getString("USERNAME");
         this.password = section.getString("PASSWORD");
         this.ssl = section.getBoolean("SSL");
+        this.connectionTimeout = section.getLong("CONNECTION-TIMEOUT-MS", 5000);
     }
 
     public void disconnect() {
@@ -0,0 +1,95 @@
+package me.infinity.groupstats.manager;
+
+import de.marcely.bedwars.api.arena.Arena;
+import de.marcely.bedwars.api.arena.Team;
+import org.bukkit.entity.Player;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Tracks which party every player belongs to for the duration of a round.
+ * Rosters are captured when the round starts so that players leaving mid-game do not change the party identity.
+ * Teams are only treated as parties when enabled, and optionally only in the listed arenas, since teammates in
+ * public queues did not necessarily queue together.
+ */
+public class PartyManager {
+
+    private final boolean enabled;
+    private final List<String> arenas;
+
+    private final Map<UUID, UUID> partyByPlayer = new ConcurrentHashMap<>();
+    private final Map<String, Set<UUID>> partiesByArena = new ConcurrentHashMap<>();
+
+    public PartyManager(boolean enabled, List<String> arenas) {
+        this.enabled = enabled;
+        this.arenas = arenas;
+    }
+
+    /**
+     * Derives the party id of a group of players, independent of the order of the members.
+     */
+    public static UUID getPartyId(Collection<UUID> members) {
+        return UUID.nameUUIDFromBytes(serialize(members).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Captures the team rosters of the arena. Teams with a single player are not considered a party.
+     * Mappings left behind by a previous round of the arena or its players are cleared first.
+     *
+     * @return party id mapped to its serialized member list, for every party found in the arena
+     */
+    public Map<UUID, String> register(Arena arena) {
+        this.unregister(arena);
+
+        final Map<UUID, String> parties = new ConcurrentHashMap<>();
+        for (Team team : arena.getEnabledTeams()) {
+            final Collection<Player> players = arena.getPlayersInTeam(team);
+            players.forEach(player -> this.partyByPlayer.remove(player.getUniqueId()));
+            if (!this.isTracked(arena) || players.size() < 2) continue;
+
+            final List<UUID> memberIds = players.stream().map(Player::getUniqueId).collect(Collectors.toList());
+            final String members = serialize(memberIds);
+            final UUID partyId = getPartyId(memberIds);
+            players.forEach(player -> this.partyByPlayer.put(player.getUniqueId(), partyId));
+            parties.put(partyId, members);
+        }
+        this.partiesByArena.put(arena.getName(), new HashSet<>(parties.keySet()));
+        return parties;
+    }
+
+    /**
+     * Forgets every party of the arena.
+     *
+     * @return the ids of the parties that took part in the round
+     */
+    public Set<UUID> unregister(Arena arena) {
+        final Set<UUID> parties = this.partiesByArena.remove(arena.getName());
+        if (parties == null) return new HashSet<>();
+
+        this.partyByPlayer.values().removeIf(parties::contains);
+        return parties;
+    }
+
+    public UUID getParty(UUID playerId) {
+        return this.partyByPlayer.get(playerId);
+    }
+
+    private boolean isTracked(Arena arena) {
+        return this.enabled && (this.arenas.isEmpty() || this.arenas.contains(arena.getName()));
+    }
+
+    private static String serialize(Collection<UUID> members) {
+        return members.stream()
+                .map(UUID::toString)
+                .sorted()
+                .collect(Collectors.joining(","));
+    }
+}